@@ -0,0 +1,49 @@
+package org.crumbleworks.forge.ncdr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Precompiles word lists into a stored {@link Ncdr}, used by the build to create {@link Ncdr#DEFAULT_DICTIONARY}.
+ * 
+ * <p>Arguments: <code>path/to/output.ncdr strip path/to/words.txt [path/to/more-words.txt ...]</code>
+ * 
+ * <p>Every word list argument may also hold several paths divided by the platform's path separator
+ * (<code>:</code> or <code>;</code>), e.g. <code>words.txt:more-words.txt</code>.
+ * 
+ * @author Michael Stocker
+ * @since CURRENT_VERSION
+ */
+public class DictionaryCompiler {
+    
+    public static void main(String[] args) throws IOException {
+        if(args.length < 3) {
+            throw new IllegalArgumentException("Usage: DictionaryCompiler <output> <strip> <word-list>...");
+        }
+        
+        Path output = Paths.get(args[0]);
+        Ncdr ncdr = new Ncdr(args[1]);
+        
+        for(int i = 2 ; i < args.length ; i++) {
+            for(String wordList : args[i].split(File.pathSeparator)) {
+                if(!"".equals(wordList.trim())) {
+                    ncdr.feed(Files.readAllLines(Paths.get(wordList.trim())));
+                }
+            }
+        }
+        
+        if(output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        
+        try(OutputStream out = Files.newOutputStream(output)) {
+            ncdr.write(out);
+        }
+        
+        System.out.println("Compiled " + ncdr.getDictionary().size() + " words into '" + output + "'");
+    }
+}
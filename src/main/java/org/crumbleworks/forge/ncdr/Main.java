@@ -5,12 +5,15 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Scanner;
 import java.util.function.Consumer;
 
 /**
  * Creates an interactive console session 
  * 
+ * <p>The session starts with the dictionary precompiled by the build, if there is one (see {@link Ncdr#defaultDictionary()}).
+ * 
  * <p>Commands:
  * <dl>
  *     <dt>E something something phrase</dt>
@@ -29,7 +32,7 @@ import java.util.function.Consumer;
  * @since CURRENT_VERSION
  */
 public class Main {
-    private static final Ncdr ncdr = new Ncdr("AaEeIiOoUu");
+    private static final Ncdr ncdr = createNcdr();
     private static boolean bye = false;
     
     private static final Map<String, Consumer<String>> cmd = new HashMap<>();
@@ -62,6 +65,21 @@ public class Main {
         });
     }
     
+    private static Ncdr createNcdr() {
+        try {
+            Optional<Ncdr> precompiled = Ncdr.defaultDictionary();
+            
+            if(precompiled.isPresent()) {
+                System.out.println("Loaded precompiled dictionary");
+                return precompiled.get();
+            }
+        } catch(IOException e) {
+            System.out.println("Failed loading the precompiled dictionary, starting with an empty one!");
+        }
+        
+        return new Ncdr("AaEeIiOoUu");
+    }
+    
     public static void main(String[] args) {
         Scanner scan = new Scanner(System.in);
         
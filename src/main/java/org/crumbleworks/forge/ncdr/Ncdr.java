@@ -4,12 +4,25 @@ import static org.crumbleworks.forge.ncdr.util.Parameters.notNull;
 import static org.crumbleworks.forge.ncdr.util.Parameters.stringNotEmpty;
 import static org.crumbleworks.forge.ncdr.util.StringUtil.neitherNullNorEmpty;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 
 import org.crumbleworks.forge.ncdr.util.LookupNode;
 import org.crumbleworks.forge.ncdr.util.LookupNode.LookupResult;
@@ -21,34 +34,119 @@ import org.slf4j.LoggerFactory;
  * 
  * <p>The ncdr is case-sensitive.
  * 
+ * <p>A fed ncdr can be stored with {@link #write(OutputStream)} and restored with {@link #read(InputStream)}. The build
+ * precompiles the dictionary found at {@link #DEFAULT_DICTIONARY} which can be loaded with {@link #defaultDictionary()}.
+ * 
  * @author Michael Stocker
  * @since CURRENT_VERSION
  */
 public class Ncdr {
     private static final Logger logger = LoggerFactory.getLogger(Ncdr.class);
     
+    /**
+     * Classpath location of the dictionary precompiled by the build.
+     */
+    public static final String DEFAULT_DICTIONARY = "/org/crumbleworks/forge/ncdr/default.ncdr";
+    
+    private static final int DICTIONARY_MAGIC = 0x4E434452; //NCDR
+    private static final int DICTIONARY_VERSION = 1;
+    
     /**
      * Thank you stackoveflow
      * @see https://stackoverflow.com/a/29871638/2889776
      */
-    private static final String PUNCTUATION_SPLITTER = " ?(?<!\\G)((?<=[^\\p{Punct}])(?=\\p{Punct})|\\b) ?";
-    private static final String PUNCTUATION_REGEX = "^\\p{Punct}+$";
+    private static final Pattern PUNCTUATION_SPLITTER = Pattern.compile(" ?(?<!\\G)((?<=[^\\p{Punct}])(?=\\p{Punct})|\\b) ?");
+    private static final Pattern PUNCTUATION = Pattern.compile("^\\p{Punct}+$");
+    private static final Pattern SMILEY = Pattern.compile("^.*[:;].*$");
     
     private static final String UNKNOWN_WORD_PREFIX = "¿";
     private static final String UNKNOWN_WORD_SUFFIX = "?";
     private static final String MULTIPLE_RESULTS_DIVIDER = "|";
     
-    private final String stripRegex;
-    private final String onlyStrippedCharsRegex;
+    private final String strip;
+    private final Pattern stripPattern;
+    private final Pattern onlyStrippedCharsPattern;
     private final LookupNode<String> dictionary;
     
     /**
      * @param strip the letters to be stripped 
      */
     public Ncdr(final String strip) {
-        stripRegex = "[" + stringNotEmpty(notNull(strip)) + "]";
-        onlyStrippedCharsRegex = "^" + stripRegex + "+$";
-        dictionary = new LookupNode<>();
+        this(strip, new LookupNode<>());
+    }
+    
+    private Ncdr(final String strip, final LookupNode<String> dictionary) {
+        this.strip = stringNotEmpty(notNull(strip));
+        stripPattern = Pattern.compile("[" + strip + "]");
+        onlyStrippedCharsPattern = Pattern.compile("^" + stripPattern.pattern() + "+$");
+        this.dictionary = dictionary;
+    }
+    
+    /**
+     * Restores a ncdr previously stored with {@link #write(OutputStream)}.
+     * 
+     * <p>The stripped letters are restored as well, the dictionary is not stripped &amp; fed again.
+     * 
+     * @param in the stream to read from, will not be closed &amp; is only read up to the end of the stored ncdr
+     * 
+     * @return the restored ncdr
+     * 
+     * @throws IOException if reading fails or the stream does not contain a stored ncdr
+     */
+    public static Ncdr read(final InputStream in) throws IOException {
+        DataInput data = new DataInputStream(notNull(in));
+        
+        if(data.readInt() != DICTIONARY_MAGIC) {
+            throw new IOException("Stream does not contain a stored ncdr!");
+        }
+        
+        int version = data.readInt();
+        if(version != DICTIONARY_VERSION) {
+            throw new IOException("Unsupported dictionary version: " + version);
+        }
+        
+        String strip = data.readUTF();
+        LookupNode<String> dictionary = LookupNode.read(data, DataInput::readUTF);
+        
+        return new Ncdr(strip, dictionary);
+    }
+    
+    /**
+     * Restores the dictionary precompiled by the build from {@link #DEFAULT_DICTIONARY}.
+     * 
+     * @return the restored ncdr or <code>empty</code> if there is no precompiled dictionary on the classpath
+     * 
+     * @throws IOException if reading the precompiled dictionary fails
+     */
+    public static Optional<Ncdr> defaultDictionary() throws IOException {
+        InputStream resource = Ncdr.class.getResourceAsStream(DEFAULT_DICTIONARY);
+        
+        if(resource == null) {
+            logger.debug("No precompiled dictionary found at '{}'.", DEFAULT_DICTIONARY);
+            return Optional.empty();
+        }
+        
+        try(InputStream in = new BufferedInputStream(resource)) {
+            return Optional.of(read(in));
+        }
+    }
+    
+    /**
+     * Stores the stripped letters &amp; the dictionary of this ncdr.
+     * 
+     * @param out the stream to write to, will be flushed but not closed
+     * 
+     * @throws IOException if writing fails
+     */
+    public void write(final OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(notNull(out)));
+        
+        data.writeInt(DICTIONARY_MAGIC);
+        data.writeInt(DICTIONARY_VERSION);
+        data.writeUTF(strip);
+        dictionary.write(data, DataOutput::writeUTF);
+        
+        data.flush();
     }
     
     /**
@@ -69,7 +167,7 @@ public class Ncdr {
      */
     public void feed(String word) {
         String strippedWord = strip(notNull(word));
-        logger.debug("Feeding '{}' > '{}' to the dictionary.", strippedWord, word);
+        logger.trace("Feeding '{}' > '{}' to the dictionary.", strippedWord, word);
         dictionary.put(strippedWord, word);
     }
     
@@ -97,19 +195,26 @@ public class Ncdr {
     public String encode(final String s, boolean add) {
         logger.debug("Encoding: {}", s);
 
-        return process(s, (w) -> {
-            if(w.matches(onlyStrippedCharsRegex)) {
-                logger.debug(" > Skipping empty");
-                return "";
-            }
-                
-            if(add) {
-                feed(w);
-            }
-            
-            logger.debug(" > Word");
-            return strip(w);
-        });
+        return process(s, (w) -> encodeWord(w, add), new StringBuilder());
+    }
+    
+    /**
+     * Will encode the given phrases.
+     * 
+     * <p>Behaves like calling {@link #encode(String, boolean)} for every phrase, but encodes every distinct word only
+     * once for the whole batch.
+     * 
+     * @param phrases the phrases to be encoded
+     * @param add tells the method to add any unknown words to the dicitonary
+     * 
+     * @return the encoded phrases, in the same order as the given phrases
+     */
+    public List<String> encodeAll(final Collection<String> phrases, boolean add) {
+        logger.debug("Encoding {} phrases", notNull(phrases).size());
+        
+        final Map<String, String> encoded = new HashMap<>();
+        
+        return processAll(phrases, (w) -> encoded.computeIfAbsent(w, (k) -> encodeWord(k, add)));
     }
     
     /**
@@ -128,57 +233,112 @@ public class Ncdr {
     public String decode(final String s) {
         logger.debug("Decoding: {}", s);
 
-        return process(s, (w) -> {
-            StringBuilder sb = new StringBuilder();
+        return process(s, this::decodeWord, new StringBuilder());
+    }
+    
+    /**
+     * Will decode the given phrases.
+     * 
+     * <p>Behaves like calling {@link #decode(String)} for every phrase, but resolves every distinct word only once
+     * against the dictionary for the whole batch.
+     * 
+     * @param phrases the phrases to be decoded
+     * 
+     * @return the decoded phrases, in the same order as the given phrases
+     */
+    public List<String> decodeAll(final Collection<String> phrases) {
+        logger.debug("Decoding {} phrases", notNull(phrases).size());
+        
+        final Map<String, String> decoded = new HashMap<>();
+        
+        return processAll(phrases, (w) -> decoded.computeIfAbsent(w, this::decodeWord));
+    }
+    
+    private final String encodeWord(final String w, boolean add) {
+        if(onlyStrippedCharsPattern.matcher(w).matches()) {
+            logger.trace(" > Skipping empty");
+            return "";
+        }
             
-            logger.debug(" > Word");
-            LookupResult<String> res = dictionary.resolve(w, false);
+        if(add) {
+            feed(w);
+        }
+        
+        logger.trace(" > Word");
+        return strip(w);
+    }
+    
+    private final String decodeWord(final String w) {
+        StringBuilder sb = new StringBuilder();
+        
+        logger.trace(" > Word");
+        LookupResult<String> res = dictionary.resolve(w, false);
+        
+        if(res == null) {
+            sb.append(UNKNOWN_WORD_PREFIX)
+              .append(w)
+              .append(UNKNOWN_WORD_SUFFIX);
+        } else {
+            List<String> values = new ArrayList<>(res.getNode().getValues());
+            Collections.sort(values);
             
-            if(res == null) {
-                sb.append(UNKNOWN_WORD_PREFIX)
-                  .append(w)
-                  .append(UNKNOWN_WORD_SUFFIX);
-            } else {
-                List<String> values = new ArrayList<>(res.getNode().getValues());
-                Collections.sort(values);
-                
-                if(values.size() > 0) {
-                    for(int j = 0 ; j < values.size() ; j++) {
-                        
-                        sb.append(values.get(j));
-                        
-                        if(j < values.size() - 1) {
-                            sb.append(MULTIPLE_RESULTS_DIVIDER);
-                        }
+            if(values.size() > 0) {
+                for(int j = 0 ; j < values.size() ; j++) {
+                    
+                    sb.append(values.get(j));
+                    
+                    if(j < values.size() - 1) {
+                        sb.append(MULTIPLE_RESULTS_DIVIDER);
                     }
-                } else {
-                    sb.append(UNKNOWN_WORD_PREFIX)
-                    .append(w)
-                    .append(UNKNOWN_WORD_SUFFIX);
                 }
+            } else {
+                sb.append(UNKNOWN_WORD_PREFIX)
+                .append(w)
+                .append(UNKNOWN_WORD_SUFFIX);
             }
-            
-            return sb.toString();
-        });
+        }
+        
+        return sb.toString();
     }
     
-    private final String process(final String s, final Function<String, String> func) {
+    /**
+     * Processes every phrase with the same function &amp; the same {@link StringBuilder}.
+     */
+    private final List<String> processAll(final Collection<String> phrases, final Function<String, String> func) {
+        final List<String> results = new ArrayList<>(phrases.size());
+        final StringBuilder sb = new StringBuilder();
+        
+        for(String phrase : phrases) {
+            results.add(process(phrase, func, sb));
+        }
+        
+        return results;
+    }
+    
+    private final String process(final String s, final Function<String, String> func, final StringBuilder sb) {
         if(!neitherNullNorEmpty(s)) {
             logger.debug("Received empty or null string, returning empty string.");
             return "";
         }
         
-        final String[] tokens = s.split(PUNCTUATION_SPLITTER);
-        final StringBuilder sb = new StringBuilder();
+        final String[] tokens = PUNCTUATION_SPLITTER.split(s);
+        final boolean trace = logger.isTraceEnabled();
+        sb.setLength(0);
         
         for(int i = 0 ; i < tokens.length ; i++) {
-            logger.debug(" processing: {}", tokens[i]);
+            if(trace) {
+                logger.trace(" processing: {}", tokens[i]);
+            }
             
-            if(tokens[i].matches("\\p{Punct}") || tokens[i].matches(PUNCTUATION_REGEX)) {
-                if(tokens[i].matches("^.*[:;].*$")) {
-                    logger.debug(" > Smiley");
+            if(PUNCTUATION.matcher(tokens[i]).matches()) {
+                if(SMILEY.matcher(tokens[i]).matches()) {
+                    if(trace) {
+                        logger.trace(" > Smiley");
+                    }
                 } else {
-                    logger.debug(" > Punctuation");
+                    if(trace) {
+                        logger.trace(" > Punctuation");
+                    }
                     sb.setLength(sb.length() - 1); //so hacky..
                 }
                 
@@ -202,6 +362,6 @@ public class Ncdr {
     }
     
     private final String strip(final String s) {
-        return s.replaceAll(stripRegex, "");
+        return stripPattern.matcher(s).replaceAll("");
     }
 }
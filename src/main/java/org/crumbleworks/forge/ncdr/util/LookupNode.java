@@ -3,12 +3,16 @@ package org.crumbleworks.forge.ncdr.util;
 
 import static org.crumbleworks.forge.ncdr.util.Parameters.notNull;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Allows creating simple lookup trees.
@@ -17,11 +21,21 @@ import java.util.TreeSet;
  * 
  * <p>To get values call {@link #resolve(String, boolean)}.
  * 
+ * <p>A whole tree can be stored with {@link #write(DataOutput, ValueWriter)} and restored with
+ * {@link #read(DataInput, ValueReader)} without having to put every key again.
+ * 
+ * <p>Every node guards its own state with its own lock. Operations walk down the tree hand-over-hand: the lock of the
+ * next node is taken before the lock of the current node is released, so no operation can overtake another one along
+ * the same path. Only two locks are held at a time while walking, so puts into disjoint branches (e.g. keys starting
+ * with <code>b</code> and <code>t</code>) run in parallel below the root. Every operation still starts by taking the
+ * lock of the root though, so they all briefly contend there while the first child-node is looked up.
+ * 
  * @author Michael Stocker
  * 
  * @param <V> the type of the associated values
  */
 public final class LookupNode<V> {
+    private final ReentrantLock lock = new ReentrantLock();
     private final Map<Character, LookupNode<V>> childNodes;
 
     private final Set<V> values;
@@ -48,25 +62,40 @@ public final class LookupNode<V> {
      * @param value the new value to be added to this node
      */
     public final void addValue(final V value) {
-        this.values.add(notNull(value));
+        lock.lock();
+        try {
+            this.values.add(notNull(value));
+            possibleValues = null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
      * Gets the values for this node.
      * 
-     * @return the values assigned to this node or <code>empty list</code> if no values were assigned
+     * @return a snapshot of the values assigned to this node or <code>empty set</code> if no values were assigned
      */
     public final Set<V> getValues() {
-        return values;
+        lock.lock();
+        try {
+            return values.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(values));
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
      * Retrieves a set of all values that are further down the tree.
      * 
+     * <p>The locks of the visited nodes are held for the duration of the traversal. As a put never overtakes the
+     * traversal, the set contains exactly the values of the puts that passed this node before the traversal started.
+     * 
      * @return an unmodifiable set with all the values further down the tree.
      */
     public final Set<V> getPossibleValues() {
-        synchronized(childNodes) {
+        lock.lock();
+        try {
             if(possibleValues == null) {
                 TreeSet<V> values = new TreeSet<>();
                 
@@ -76,22 +105,35 @@ public final class LookupNode<V> {
             }
             
             return Collections.unmodifiableSortedSet(possibleValues);
+        } finally {
+            lock.unlock();
         }
     }
     
     /**
      * Traverses nodes and their children and adds any values found to the given set.
      * 
+     * <p>A child-node that still has its set of possible values cached is not traversed any further, the cache is only
+     * kept as long as no put passes the child-node.
+     * 
      * @param values the set to add every found values to
      * @param node the next node to traverse
      */
     private final void traverseNodesToCollectValues(final Set<V> values, final LookupNode<V> node) {
-        synchronized(node.childNodes) {
+        node.lock.lock();
+        try {
+            if(node != this && node.possibleValues != null) {
+                values.addAll(node.possibleValues);
+                return;
+            }
+            
             values.addAll(node.values);
             
             for(LookupNode<V> childNode : node.childNodes.values()) {
                 traverseNodesToCollectValues(values, childNode);
             }
+        } finally {
+            node.lock.unlock();
         }
     }
     
@@ -102,9 +144,9 @@ public final class LookupNode<V> {
     /**
      * Adds a new values.
      * 
-     * <p>This method will chip off the first <code>char</code> of the given key and then pass it further down the path.
-     * 
-     * <p>This operation will force this node and any child-node further down the path of the given key to recalculate their sets of possible values.
+     * <p>This method walks down the path of the given key hand-over-hand and forces every node it passes to recalculate
+     * its set of possible values. Any part of the path that does not exist yet is built off the tree first and then
+     * attached to the last existing node in one step, so no other operation ever sees a branch without a value.
      * 
      * @param key the key to be added
      * @param v the values to be added
@@ -114,33 +156,63 @@ public final class LookupNode<V> {
             return;
         }
         
-        synchronized(childNodes) {
-            char c = notNull(key).charAt(0);
-            
-            if(key.length() == 1) {
-                //reached last element of key
-                if(childNodes.containsKey(c)) {
-                    childNodes.get(c).addValue(v);
-                } else {
-                    childNodes.put(c, new LookupNode<>(v));
+        notNull(v);
+        LookupNode<V> node = this;
+        
+        node.lock.lock();
+        try {
+            for(int i = 0 ; ; i++) {
+                node.possibleValues = null;
+                
+                if(i == key.length()) {
+                    //reached last element of key
+                    node.values.add(v);
+                    return;
                 }
-            } else {
-                //key has still more elements
-                if(!childNodes.containsKey(c)) {
-                    childNodes.put(c, new LookupNode<>());
+                
+                char c = key.charAt(i);
+                LookupNode<V> childNode = node.childNodes.get(c);
+                
+                if(childNode == null) {
+                    //rest of the key is new
+                    node.childNodes.put(c, createBranch(key.substring(i + 1), v));
+                    return;
                 }
                 
-                childNodes.get(c).put(key.substring(1), v);
+                childNode.lock.lock();
+                node.lock.unlock();
+                node = childNode;
             }
-            
-            possibleValues = null;
+        } finally {
+            node.lock.unlock();
+        }
+    }
+    
+    /**
+     * Creates a detached straight line of nodes for the given key, with the value assigned to the last one.
+     * 
+     * @param key the key for the nodes, may be empty
+     * @param v the value of the last node
+     * 
+     * @return the first node of the line
+     */
+    private static final <V> LookupNode<V> createBranch(final String key, final V v) {
+        LookupNode<V> node = new LookupNode<>(v);
+        
+        for(int i = key.length() - 1 ; i >= 0 ; i--) {
+            LookupNode<V> parentNode = new LookupNode<>();
+            parentNode.childNodes.put(key.charAt(i), node);
+            node = parentNode;
         }
+        
+        return node;
     }
     
     /**
      * Resolves the supplied key against this tree.
      * 
      * <p>If the <code>partial</code> flag is set, this method will treat the supplied key as a partial-key and thus try looking further along a straight path as described in {@link LookupNode#explore(char)}.
+     * The key of the result is then the supplied key plus the explored key-segment.
      * 
      * @param key the key or partial-key to be resolved
      * @param partial tells the method to explore further if the supplied key has no associated values
@@ -148,59 +220,46 @@ public final class LookupNode<V> {
      * @return a {@link LookupResult} or <code>null</code> if the supplied key cannot be fully resolved
      */
     public final LookupResult<V> resolve(final String key, boolean partial) {
-        synchronized(childNodes) {
-            //we're technically abusing the lookup result here
-            LookupResult<V> lookupResult = findNode(key, this);
-            
-            //if we found our node the key in the result should be 1 char long
-            if(lookupResult != null && lookupResult.getKey().length() == 1) {
-                if(partial) {
-                    if(lookupResult.getNode().getPossibleValues().size() > 1
-                    || (lookupResult.getNode().getPossibleValues().size() == 1 && !lookupResult.getNode().getValues().isEmpty())) {
-                        return new LookupResult<>(key, lookupResult.getNode());
-                    }
-                    
-                    return traverseNodesStraight(
-                            new StringBuilder(lookupResult.getNode().childNodes.keySet().iterator().next()),
-                            lookupResult.getNode().childNodes.values().iterator().next());
-                }
+        if(notNull(key).length() == 0) {
+            return null;
+        }
+        
+        LookupNode<V> node = this;
+        
+        node.lock.lock();
+        try {
+            for(int i = 0 ; i < key.length() ; i++) {
+                LookupNode<V> childNode = node.childNodes.get(key.charAt(i));
                 
-                if(!lookupResult.getNode().getValues().isEmpty()) {
-                    //got a values, no more exploring
-                    return new LookupResult<>(key, lookupResult.getNode());
+                if(childNode == null) {
+                    //could not finish looking up key
+                    return null;
                 }
+                
+                childNode.lock.lock();
+                node.lock.unlock();
+                node = childNode;
             }
             
-            //could not finish looking up key
-            return null;
-        }
-    }
-    
-    /**
-     * Traverses nodes until it either finds the node associated with the key or hits a dead-end.
-     * 
-     * @param key the key representing the path to the node
-     * @param node the node on which to start looking
-     * 
-     * @return a {@link LookupResult} or <code>null</code> if the key cannot be found
-     */
-    private final LookupResult<V> findNode(final String key, final LookupNode<V> node) {
-        synchronized(childNodes) {
-            char c = notNull(key).charAt(0);
-            
-            if(node.childNodes.containsKey(c)) {
-                if(key.length() == 1) {
-                    //reached last element of key
-                    return new LookupResult<>(key, node.childNodes.get(c));
-                }
+            if(partial) {
+                //hands the lock of the found node over
+                LookupNode<V> foundNode = node;
+                node = null;
                 
-                //key has still more elements
-                return findNode(
-                        key.substring(1),
-                        node.childNodes.get(c));
+                return traverseNodesStraight(new StringBuilder(key), foundNode);
             }
             
+            if(!node.values.isEmpty()) {
+                //got a values, no more exploring
+                return new LookupResult<>(key, node);
+            }
+            
+            //could not finish looking up key
             return null;
+        } finally {
+            if(node != null) {
+                node.lock.unlock();
+            }
         }
     }
     
@@ -214,38 +273,138 @@ public final class LookupNode<V> {
      * @return a {@link LookupResult} or <code>null</code> if there's no match along the branch
      */
     public final LookupResult<V> explore(char c) {
-        synchronized(childNodes) {
-            if(!childNodes.containsKey(c)) {
+        LookupNode<V> childNode;
+        
+        lock.lock();
+        try {
+            childNode = childNodes.get(c);
+            
+            if(childNode == null) {
                 //has no matching child-node > null
                 return null;
             }
             
-            return traverseNodesStraight(new StringBuilder(c), childNodes.get(c));
+            childNode.lock.lock();
+        } finally {
+            lock.unlock();
         }
+        
+        return traverseNodesStraight(new StringBuilder().append(c), childNode);
     }
     
     /**
      * Traverses a straight line of nodes until either a dead-end or a fork.
      * 
+     * <p>Expects the lock of the given node to be held by the caller, and releases the lock of the node it stops at.
+     * 
      * @param s a {@link StringBuilder} containing the traversed key-segment
      * @param node the next node to check
      */
-    private final LookupResult<V> traverseNodesStraight(final StringBuilder s, final LookupNode<V> node) {
-        synchronized(childNodes) {
-            if(!node.getValues().isEmpty()) {
-                //has values
-                return new LookupResult<>(s.toString(), node);
+    private static final <V> LookupResult<V> traverseNodesStraight(final StringBuilder s, LookupNode<V> node) {
+        try {
+            while(true) {
+                if(!node.values.isEmpty()) {
+                    //has values
+                    return new LookupResult<>(s.toString(), node);
+                }
+                
+                if(node.getPossibleValues().size() > 1) {
+                    //multiple branches
+                    return new LookupResult<>(s.toString(), node);
+                }
+                
+                Map.Entry<Character, LookupNode<V>> child = node.childNodes.entrySet().iterator().next();
+                
+                s.append(child.getKey());
+                child.getValue().lock.lock();
+                node.lock.unlock();
+                node = child.getValue();
             }
+        } finally {
+            node.lock.unlock();
+        }
+    }
+    
+    /* **********************************************************************
+     * SERIALIZATION
+     */
+    
+    /**
+     * Writes this node and all nodes further down the tree.
+     * 
+     * <p>The nodes are written depth-first, each one as its values followed by its child-nodes. The locks of the
+     * visited nodes are held while writing, so the written tree is a consistent snapshot.
+     * 
+     * @param out the output to write to
+     * @param writer writes a single value
+     * 
+     * @throws IOException if writing to the output fails
+     */
+    public final void write(final DataOutput out, final ValueWriter<V> writer) throws IOException {
+        lock.lock();
+        try {
+            out.writeInt(values.size());
             
-            if(node.getPossibleValues().size() > 1) {
-                //multiple branches
-                return new LookupResult<>(s.toString(), node);
+            for(V value : values) {
+                writer.write(out, value);
             }
             
-            return traverseNodesStraight(
-                    s.append(node.childNodes.keySet().iterator().next()),
-                    node.childNodes.values().iterator().next());
+            out.writeInt(childNodes.size());
+            
+            for(Map.Entry<Character, LookupNode<V>> child : childNodes.entrySet()) {
+                out.writeChar(child.getKey());
+                child.getValue().write(out, writer);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Reads a tree previously written with {@link #write(DataOutput, ValueWriter)}.
+     * 
+     * @param in the input to read from
+     * @param reader reads a single value
+     * 
+     * @return the root node of the restored tree
+     * 
+     * @throws IOException if reading from the input fails
+     */
+    public static final <V> LookupNode<V> read(final DataInput in, final ValueReader<V> reader) throws IOException {
+        LookupNode<V> node = new LookupNode<>();
+        
+        int valueCount = in.readInt();
+        for(int i = 0 ; i < valueCount ; i++) {
+            node.values.add(notNull(reader.read(in)));
+        }
+        
+        int childCount = in.readInt();
+        for(int i = 0 ; i < childCount ; i++) {
+            char c = in.readChar();
+            node.childNodes.put(c, read(in, reader));
         }
+        
+        return node;
+    }
+    
+    /**
+     * Writes a single value of a {@link LookupNode}.
+     * 
+     * @param <V> the type of the values
+     */
+    @FunctionalInterface
+    public static interface ValueWriter<V> {
+        void write(DataOutput out, V value) throws IOException;
+    }
+    
+    /**
+     * Reads a single value of a {@link LookupNode}.
+     * 
+     * @param <V> the type of the values
+     */
+    @FunctionalInterface
+    public static interface ValueReader<V> {
+        V read(DataInput in) throws IOException;
     }
     
     /* **********************************************************************
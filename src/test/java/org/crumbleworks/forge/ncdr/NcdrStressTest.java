@@ -0,0 +1,433 @@
+package org.crumbleworks.forge.ncdr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.crumbleworks.forge.ncdr.util.ConcurrentRunner;
+import org.crumbleworks.forge.ncdr.util.LookupNode;
+import org.crumbleworks.forge.ncdr.util.LookupNode.LookupResult;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stress &amp; soak test for a single {@link Ncdr} and {@link LookupNode} shared by many threads.
+ *
+ * <p>Feeder threads keep feeding a synthetic corpus while worker threads mix <code>encode</code>, <code>decode</code>,
+ * <code>resolve</code> &amp; <code>getDictionary</code> calls. Every result is checked against a single-threaded
+ * oracle, and throughput &amp; latency percentiles are logged per operation.
+ *
+ * <p>Only runs when <code>ncdr.stress.seconds</code> is set, e.g.:
+ * <code>mvn test -Dtest=NcdrStressTest -Dncdr.stress.seconds=600 -Dncdr.stress.threads=16</code>
+ *
+ * @author Michael Stocker
+ * @since CURRENT_VERSION
+ */
+public class NcdrStressTest {
+    private static final Logger logger = LoggerFactory.getLogger(NcdrStressTest.class);
+
+    private static final String vowels = "AaEeIiOoUu";
+    private static final String WORD_LIST = "1000_most_common_english_words.txt";
+
+    private static final int SECONDS = Integer.getInteger("ncdr.stress.seconds", 5);
+    private static final int WORKERS = Integer.getInteger("ncdr.stress.threads", Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+    private static final int FEEDERS = 2;
+    private static final int SYNTHETIC_WORDS = 20000;
+    private static final int PHRASES = 2000;
+    private static final int MAX_ERRORS = 20;
+
+    private static final String[] OPERATIONS = { "feed", "encode", "decode", "decode-synthetic", "resolve", "resolve-partial", "getDictionary" };
+    private static final int FEED = 0;
+    private static final int ENCODE = 1;
+    private static final int DECODE = 2;
+    private static final int DECODE_SYNTHETIC = 3;
+    private static final int RESOLVE = 4;
+    private static final int RESOLVE_PARTIAL = 5;
+    private static final int GET_DICTIONARY = 6;
+
+    @Test
+    public void testMixedLoad() throws Exception {
+        assumeTrue("Stress test only runs with -Dncdr.stress.seconds=<seconds>", System.getProperty("ncdr.stress.seconds") != null);
+        
+        final Ncdr oracle = new Ncdr(vowels);
+
+        /* base dictionary: bundled word list, fed before the load starts */
+        final List<String> base = new ArrayList<>();
+        for(String word : Files.readAllLines(Paths.get(WORD_LIST))) {
+            //words like "n't" would be split & fed as "n" and "t" by encode
+            if(word.matches("^\\p{Alpha}+$") && !"".equals(oracle.encode(word, false))) {
+                base.add(word);
+            }
+        }
+
+        final Set<String> baseKeys = new HashSet<>();
+        for(String word : base) {
+            baseKeys.add(oracle.encode(word, false));
+        }
+
+        /* synthetic corpus: one word per stripped key, no key shared with the base dictionary */
+        final List<String> synthetic = synthetic(baseKeys, oracle, new Random(1337));
+
+        oracle.feed(base);
+        oracle.feed(synthetic);
+
+        final Ncdr ncdr = new Ncdr(vowels);
+        final LookupNode<String> tree = new LookupNode<>();
+        ncdr.feed(base);
+        for(String word : base) {
+            tree.put(oracle.encode(word, false), word);
+        }
+
+        /* resolve results from a fully fed oracle tree, for keys & prefixes no synthetic key starts with */
+        final LookupNode<String> oracleTree = new LookupNode<>();
+        final Set<String> syntheticPrefixes = new HashSet<>();
+        for(String word : base) {
+            oracleTree.put(oracle.encode(word, false), word);
+        }
+        for(String word : synthetic) {
+            String key = oracle.encode(word, false);
+            oracleTree.put(key, word);
+
+            for(int i = 1 ; i <= key.length() ; i++) {
+                syntheticPrefixes.add(key.substring(0, i));
+            }
+        }
+
+        final Map<String, Set<String>> resolved = new HashMap<>();
+        final Map<String, LookupResult<String>> partiallyResolved = new HashMap<>();
+        for(String key : baseKeys) {
+            resolved.put(key, oracleTree.resolve(key, false).getNode().getValues());
+
+            for(int i = 1 ; i <= key.length() ; i++) {
+                String prefix = key.substring(0, i);
+
+                if(!syntheticPrefixes.contains(prefix)) {
+                    partiallyResolved.put(prefix, oracleTree.resolve(prefix, true));
+                }
+            }
+        }
+        final List<String> resolvableKeys = new ArrayList<>(resolved.keySet());
+        final List<String> resolvablePrefixes = new ArrayList<>(partiallyResolved.keySet());
+
+        /* phrases with expected results from the oracle */
+        final Random random = new Random(4711);
+        final List<String> phrases = new ArrayList<>();
+        final Map<String, String> encoded = new HashMap<>();
+        final Map<String, String> decoded = new HashMap<>();
+        for(int i = 0 ; i < PHRASES ; i++) {
+            String phrase = phrase(i % 2 == 0 ? base : synthetic, random);
+            String encodedPhrase = oracle.encode(phrase, false);
+
+            phrases.add(phrase);
+            encoded.put(phrase, encodedPhrase);
+
+            if(i % 2 == 0) {
+                //only phrases of base words decode the same regardless of the feeding progress
+                decoded.put(encodedPhrase, oracle.decode(encodedPhrase));
+            }
+        }
+        final List<String> decodable = new ArrayList<>(decoded.keySet());
+
+        final AtomicIntegerArray fed = new AtomicIntegerArray(FEEDERS);
+        for(int i = 0 ; i < FEEDERS ; i++) {
+            fed.set(i, -1);
+        }
+
+        final Queue<String> errors = new ConcurrentLinkedQueue<>();
+        final List<Histogram[]> histograms = new ArrayList<>();
+        for(int t = 0 ; t < FEEDERS + WORKERS ; t++) {
+            histograms.add(histograms());
+        }
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(SECONDS);
+
+        //the first threads feed, all others are workers
+        long elapsed = ConcurrentRunner.run(FEEDERS + WORKERS, (thread) -> {
+            final Histogram[] h = histograms.get(thread);
+
+            if(thread < FEEDERS) {
+                final int feeder = thread;
+
+                //every feeder owns every FEEDERS-th word, and keeps re-feeding them until the time is up
+                for(int i = feeder ; System.nanoTime() < end ; i += FEEDERS) {
+                    if(i >= synthetic.size()) {
+                        i = feeder;
+                    }
+
+                    String word = synthetic.get(i);
+                    String key = oracle.encode(word, false);
+
+                    long before = System.nanoTime();
+                    ncdr.feed(word);
+                    tree.put(key, word);
+                    h[FEED].record(System.nanoTime() - before);
+
+                    if(fed.get(feeder) < i) {
+                        fed.set(feeder, i);
+                    }
+                }
+            } else {
+                final Random r = new Random(thread - FEEDERS);
+
+                while(System.nanoTime() < end && errors.size() < MAX_ERRORS) {
+                    int dice = r.nextInt(1000);
+                    long before = System.nanoTime();
+
+                    if(dice < 300) {
+                        String phrase = phrases.get(r.nextInt(phrases.size()));
+                        String result = ncdr.encode(phrase, true);
+                        h[ENCODE].record(System.nanoTime() - before);
+
+                        check(errors, encoded.get(phrase), result, "encode(" + phrase + ")");
+                    } else if(dice < 600) {
+                        String phrase = decodable.get(r.nextInt(decodable.size()));
+                        String result = ncdr.decode(phrase);
+                        h[DECODE].record(System.nanoTime() - before);
+
+                        check(errors, decoded.get(phrase), result, "decode(" + phrase + ")");
+                    } else if(dice < 750) {
+                        //any word a feeder has published must be decodable from now on
+                        int feeder = r.nextInt(FEEDERS);
+                        int published = fed.get(feeder);
+                        if(published < 0) {
+                            continue;
+                        }
+
+                        int i = feeder + FEEDERS * r.nextInt(published / FEEDERS + 1);
+                        String key = oracle.encode(synthetic.get(i), false);
+
+                        before = System.nanoTime();
+                        String result = ncdr.decode(key);
+                        h[DECODE_SYNTHETIC].record(System.nanoTime() - before);
+
+                        check(errors, synthetic.get(i), result, "decode(" + key + ")");
+                    } else if(dice < 870) {
+                        String key = resolvableKeys.get(r.nextInt(resolvableKeys.size()));
+                        LookupResult<String> result = tree.resolve(key, false);
+                        h[RESOLVE].record(System.nanoTime() - before);
+
+                        if(result == null) {
+                            error(errors, "resolve(" + key + ", false) found nothing");
+                        } else {
+                            check(errors, resolved.get(key), result.getNode().getValues(), "resolve(" + key + ", false)");
+                        }
+                    } else if(dice < 998) {
+                        //no synthetic key starts with the prefix, so the result does not depend on the feeding progress
+                        String prefix = resolvablePrefixes.get(r.nextInt(resolvablePrefixes.size()));
+                        LookupResult<String> result = tree.resolve(prefix, true);
+                        h[RESOLVE_PARTIAL].record(System.nanoTime() - before);
+
+                        LookupResult<String> expected = partiallyResolved.get(prefix);
+                        if(result == null) {
+                            error(errors, "resolve(" + prefix + ", true) found nothing");
+                        } else {
+                            check(errors, expected.getKey(), result.getKey(), "resolve(" + prefix + ", true) key");
+                            check(errors, expected.getNode().getPossibleValues(), result.getNode().getPossibleValues(),
+                                    "resolve(" + prefix + ", true) values");
+                        }
+                    } else {
+                        int[] published = new int[FEEDERS];
+                        for(int i = 0 ; i < FEEDERS ; i++) {
+                            published[i] = fed.get(i);
+                        }
+
+                        before = System.nanoTime();
+                        Set<String> dictionary = ncdr.getDictionary();
+                        h[GET_DICTIONARY].record(System.nanoTime() - before);
+
+                        if(!dictionary.containsAll(base)) {
+                            error(errors, "getDictionary() is missing base words");
+                        }
+
+                        for(int i = 0 ; i < FEEDERS ; i++) {
+                            for(int j = i ; j <= published[i] ; j += FEEDERS) {
+                                if(!dictionary.contains(synthetic.get(j))) {
+                                    error(errors, "getDictionary() is missing published word '" + synthetic.get(j) + "'");
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }, SECONDS + 120, TimeUnit.SECONDS);
+
+        report(histograms, elapsed);
+
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        /* once everything is fed the shared ncdr has to match the oracle */
+        ncdr.feed(synthetic);
+        assertEquals(oracle.getDictionary(), ncdr.getDictionary());
+        for(String phrase : decodable) {
+            assertEquals(oracle.decode(phrase), ncdr.decode(phrase));
+        }
+    }
+
+    /* **********************************************************************
+     * HELPERS
+     */
+
+    private static void check(final Queue<String> errors, final Object expected, final Object actual, final String operation) {
+        if(!expected.equals(actual)) {
+            error(errors, operation + ": expected '" + expected + "' but was '" + actual + "'");
+        }
+    }
+
+    private static void error(final Queue<String> errors, final String error) {
+        if(errors.size() < MAX_ERRORS) {
+            errors.add(error);
+        }
+    }
+
+    /**
+     * Creates random words whose stripped keys are neither shared with each other nor with the given keys.
+     */
+    private static List<String> synthetic(final Set<String> taken, final Ncdr oracle, final Random random) {
+        final String letters = "bcdfghklmnprstvwyzaeiou";
+        final Set<String> keys = new HashSet<>(taken);
+        final Set<String> words = new LinkedHashSet<>();
+
+        while(words.size() < SYNTHETIC_WORDS) {
+            StringBuilder sb = new StringBuilder();
+            int length = 3 + random.nextInt(8);
+
+            for(int i = 0 ; i < length ; i++) {
+                sb.append(letters.charAt(random.nextInt(letters.length())));
+            }
+
+            String key = oracle.encode(sb.toString(), false);
+            if(!"".equals(key) && keys.add(key)) {
+                words.add(sb.toString());
+            }
+        }
+
+        return new ArrayList<>(words);
+    }
+
+    /**
+     * Creates a phrase of 1 to 8 words, with a bit of punctuation here &amp; there.
+     */
+    private static String phrase(final List<String> words, final Random random) {
+        final String[] punctuation = { ",", ".", "!", "?!", "...", " :/" };
+        final StringBuilder sb = new StringBuilder();
+        int length = 1 + random.nextInt(8);
+
+        for(int i = 0 ; i < length ; i++) {
+            if(i > 0) {
+                sb.append(' ');
+            }
+
+            sb.append(words.get(random.nextInt(words.size())));
+
+            if(random.nextInt(5) == 0) {
+                sb.append(punctuation[random.nextInt(punctuation.length)]);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static Histogram[] histograms() {
+        Histogram[] histograms = new Histogram[OPERATIONS.length];
+
+        for(int i = 0 ; i < histograms.length ; i++) {
+            histograms[i] = new Histogram();
+        }
+
+        return histograms;
+    }
+
+    /**
+     * @param elapsed the nanoseconds the load actually ran for
+     */
+    private static void report(final List<Histogram[]> histograms, final long elapsed) {
+        logger.info("{} feeder(s), {} worker(s), {} ms", FEEDERS, WORKERS, TimeUnit.NANOSECONDS.toMillis(elapsed));
+
+        for(int op = 0 ; op < OPERATIONS.length ; op++) {
+            Histogram total = new Histogram();
+
+            for(Histogram[] h : histograms) {
+                total.add(h[op]);
+            }
+
+            logger.info("{}: {} ops, {} ops/s, p50 {} us, p90 {} us, p99 {} us, p99.9 {} us, max {} us",
+                    OPERATIONS[op], total.count, total.count * TimeUnit.SECONDS.toNanos(1) / Math.max(elapsed, 1),
+                    total.percentile(0.5), total.percentile(0.9), total.percentile(0.99), total.percentile(0.999),
+                    TimeUnit.NANOSECONDS.toMicros(total.max));
+        }
+    }
+
+    /**
+     * Latency histogram with four buckets per power of two, so a long run does not have to keep every sample.
+     */
+    private static final class Histogram {
+        private static final int BUCKETS_PER_OCTAVE = 4;
+
+        private final long[] buckets = new long[64 * BUCKETS_PER_OCTAVE];
+        private long count;
+        private long max;
+
+        void record(final long nanos) {
+            buckets[bucket(Math.max(nanos, 1))]++;
+            count++;
+            max = Math.max(max, nanos);
+        }
+
+        void add(final Histogram other) {
+            for(int i = 0 ; i < buckets.length ; i++) {
+                buckets[i] += other.buckets[i];
+            }
+
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         * @return the upper bound of the bucket containing the given percentile, in microseconds
+         */
+        long percentile(final double percentile) {
+            long rank = (long)Math.ceil(count * percentile);
+            long seen = 0;
+
+            for(int i = 0 ; i < buckets.length ; i++) {
+                seen += buckets[i];
+
+                if(seen >= rank && seen > 0) {
+                    return TimeUnit.NANOSECONDS.toMicros(Math.min(upperBound(i), max));
+                }
+            }
+
+            return 0;
+        }
+
+        private static int bucket(final long nanos) {
+            int octave = 63 - Long.numberOfLeadingZeros(nanos);
+            int fraction = octave < 2 ? 0 : (int)((nanos >>> (octave - 2)) & (BUCKETS_PER_OCTAVE - 1));
+
+            return octave * BUCKETS_PER_OCTAVE + fraction;
+        }
+
+        private static long upperBound(final int bucket) {
+            int octave = bucket / BUCKETS_PER_OCTAVE;
+            int fraction = bucket % BUCKETS_PER_OCTAVE;
+
+            return (1L << octave) + ((fraction + 1L) << octave) / BUCKETS_PER_OCTAVE;
+        }
+    }
+}
@@ -3,11 +3,22 @@ package org.crumbleworks.forge.ncdr;
 import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Tests for encoding &amp; decoding functionality
@@ -16,6 +27,7 @@ import org.junit.Test;
  * @since CURRENT_VERSION
  */
 public class NcdrTest {
+    private static final Logger logger = LoggerFactory.getLogger(NcdrTest.class);
 
     private static final String vowels = "AaEeIiOoUu";
     private static final List<String> words = new ArrayList<>();
@@ -85,4 +97,140 @@ public class NcdrTest {
         assertEquals("Hll dr frnd!", ncdr.encode("Hello dear friend!", false));
         assertEquals("Hello ¿dr? ¿frnd?!", ncdr.decode("Hll dr frnd!"));
     }
+    
+    @Test
+    public void testEncodeAll() {
+        List<String> phrases = Arrays.asList(
+                "Hello in Syberia!",
+                "",
+                "Hello from Syberia!",
+                "Joghurt, man or machine?!",
+                "Whoosh.... I spent wayyyy too much time on this :/",
+                "Hello dear friend!");
+        
+        Ncdr ncdr = new Ncdr(vowels);
+        ncdr.feed(words);
+        
+        List<String> expected = new ArrayList<>();
+        for(String phrase : phrases) {
+            expected.add(ncdr.encode(phrase, false));
+        }
+        
+        assertEquals(expected, ncdr.encodeAll(phrases, true));
+        assertEquals("Hello dear friend!", ncdr.decode("Hll dr frnd!"));
+    }
+    
+    @Test
+    public void testDecodeAll() {
+        List<String> phrases = Arrays.asList(
+                "Hll n Sybr!",
+                "Hll frm Sybr!",
+                "",
+                "Pzz",
+                "Hll n Sybr!");
+        
+        Ncdr ncdr = new Ncdr(vowels);
+        ncdr.feed(words);
+        
+        assertEquals(Arrays.asList(
+                "Hello an|in Syberia!",
+                "Hello ¿frm? Syberia!",
+                "",
+                "¿Pzz?",
+                "Hello an|in Syberia!"), ncdr.decodeAll(phrases));
+    }
+    
+    /**
+     * Only runs with <code>-Dncdr.benchmark=true</code>.
+     */
+    @Test
+    public void testDecodeAllThroughput() throws IOException {
+        assumeTrue("Benchmarks only run with -Dncdr.benchmark=true", Boolean.getBoolean("ncdr.benchmark"));
+        
+        Ncdr ncdr = Ncdr.defaultDictionary().get();
+        List<String> dictionary = new ArrayList<>(ncdr.getDictionary());
+        Random random = new Random(42);
+        
+        //short chat messages over the bundled word list
+        List<String> messages = new ArrayList<>();
+        for(int i = 0 ; i < 10000 ; i++) {
+            StringBuilder sb = new StringBuilder();
+            
+            for(int j = 0 ; j < 3 + random.nextInt(8) ; j++) {
+                sb.append(j > 0 ? " " : "").append(dictionary.get(random.nextInt(dictionary.size())));
+            }
+            
+            messages.add(ncdr.encode(sb.toString() + "!", false));
+        }
+        
+        long looped = Long.MAX_VALUE;
+        long batched = Long.MAX_VALUE;
+        List<String> expected = new ArrayList<>();
+        List<String> actual = null;
+        
+        for(int round = 0 ; round < 5 ; round++) {
+            expected.clear();
+            
+            long start = System.nanoTime();
+            for(String message : messages) {
+                expected.add(ncdr.decode(message));
+            }
+            looped = Math.min(looped, System.nanoTime() - start);
+            
+            start = System.nanoTime();
+            actual = ncdr.decodeAll(messages);
+            batched = Math.min(batched, System.nanoTime() - start);
+        }
+        
+        logger.info("Decoded {} messages: looping over decode {} ms, decodeAll {} ms",
+                messages.size(), TimeUnit.NANOSECONDS.toMillis(looped), TimeUnit.NANOSECONDS.toMillis(batched));
+        
+        assertEquals(expected, actual);
+        assertTrue("decodeAll was not faster than looping over decode", batched < looped);
+    }
+    
+    @Test
+    public void testWriteRead() throws IOException {
+        Ncdr ncdr = new Ncdr(vowels);
+        ncdr.feed(words);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ncdr.write(out);
+        Ncdr restored = Ncdr.read(new ByteArrayInputStream(out.toByteArray()));
+        
+        assertEquals(ncdr.getDictionary(), restored.getDictionary());
+        assertEquals("Hello an|in Syberia!", restored.decode("Hll n Sybr!"));
+        assertEquals("Hll frm Sybr!", restored.encode("Hello from Syberia!", true));
+        assertEquals("Hello from Syberia!", restored.decode("Hll frm Sybr!"));
+    }
+    
+    @Test
+    public void testReadLeavesTrailingBytes() throws IOException {
+        Ncdr ncdr = new Ncdr(vowels);
+        ncdr.feed(words);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ncdr.write(out);
+        out.write(42);
+        
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        Ncdr.read(in);
+        
+        assertEquals(42, in.read());
+        assertEquals(-1, in.read());
+    }
+    
+    @Test(expected = IOException.class)
+    public void testReadGarbage() throws IOException {
+        Ncdr.read(new ByteArrayInputStream("Hello World!".getBytes("UTF-8")));
+    }
+    
+    @Test
+    public void testDefaultDictionary() throws IOException {
+        Optional<Ncdr> ncdr = Ncdr.defaultDictionary();
+        
+        assertTrue(ncdr.isPresent());
+        assertTrue(ncdr.get().getDictionary().contains("ability"));
+        assertEquals("about|beat|bit|but the ability", ncdr.get().decode("bt th blty"));
+    }
 }
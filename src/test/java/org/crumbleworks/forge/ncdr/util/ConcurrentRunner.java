@@ -0,0 +1,73 @@
+package org.crumbleworks.forge.ncdr.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a task on several threads at once, shared by the concurrency tests.
+ * 
+ * @author Michael Stocker
+ * @since CURRENT_VERSION
+ */
+public final class ConcurrentRunner {
+
+    private ConcurrentRunner() {}
+    
+    /**
+     * A task that knows which of the started threads it is running on.
+     */
+    public interface Task {
+        void run(int thread) throws Exception;
+    }
+    
+    /**
+     * @see #run(int, Task, long, TimeUnit)
+     */
+    public static long run(final int threads, final Task task) throws Exception {
+        return run(threads, task, 2, TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Starts the given task on the given amount of threads at the same time and waits for all of them to finish.
+     * 
+     * @param threads the amount of threads, numbered from <code>0</code>
+     * @param task the task to run on every thread
+     * @param timeout how long to wait for every single thread
+     * @param unit the unit of the timeout
+     * 
+     * @return the nanoseconds from starting the threads until all of them finished
+     * @throws Exception the failure of the first thread that failed
+     */
+    public static long run(final int threads, final Task task, final long timeout, final TimeUnit unit) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        
+        for(int i = 0 ; i < threads ; i++) {
+            final int thread = i;
+            futures.add(executor.submit(() -> {
+                start.await();
+                task.run(thread);
+                return null;
+            }));
+        }
+        
+        long started = System.nanoTime();
+        start.countDown();
+        
+        try {
+            for(Future<?> future : futures) {
+                future.get(timeout, unit);
+            }
+            
+            return System.nanoTime() - started;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
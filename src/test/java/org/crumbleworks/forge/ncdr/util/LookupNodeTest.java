@@ -0,0 +1,265 @@
+package org.crumbleworks.forge.ncdr.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.crumbleworks.forge.ncdr.util.LookupNode.LookupResult;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for concurrent access to the lookup tree
+ * 
+ * @author Michael Stocker
+ * @since CURRENT_VERSION
+ */
+public class LookupNodeTest {
+    private static final Logger logger = LoggerFactory.getLogger(LookupNodeTest.class);
+    
+    private static final String ALPHABET = "bcdfghjklmnpqrstvwxyz";
+    private static final int WORDS_PER_THREAD = 20000;
+    private static final int BENCHMARK_KEYS = 200000;
+    
+    @Test
+    public void testConcurrentPutOnDisjointBranches() throws Exception {
+        final LookupNode<String> root = new LookupNode<>();
+        final int threads = 8;
+        final List<List<String>> keys = new ArrayList<>();
+        final Set<String> expected = new HashSet<>();
+        
+        for(int i = 0 ; i < threads ; i++) {
+            //every thread gets its own leading char
+            List<String> threadKeys = words(ALPHABET.charAt(i), WORDS_PER_THREAD / 4, i);
+            keys.add(threadKeys);
+            expected.addAll(threadKeys);
+        }
+        
+        ConcurrentRunner.run(threads, (t) -> {
+            for(String key : keys.get(t)) {
+                root.put(key, key);
+            }
+        });
+        
+        for(String key : expected) {
+            assertNotNull(key, root.resolve(key, false));
+            assertTrue(key, root.resolve(key, false).getNode().getValues().contains(key));
+        }
+        
+        assertEquals(expected, root.getPossibleValues());
+    }
+    
+    @Test
+    public void testResolveSeesCompletedPuts() throws Exception {
+        final LookupNode<String> root = new LookupNode<>();
+        final List<String> keys = words('t', WORDS_PER_THREAD, 42);
+        final AtomicInteger completed = new AtomicInteger(-1);
+        final Queue<String> errors = new ConcurrentLinkedQueue<>();
+        
+        ConcurrentRunner.run(4, (t) -> {
+            if(t == 0) {
+                //single writer, publishes every key once the put has returned
+                for(int i = 0 ; i < keys.size() ; i++) {
+                    root.put(keys.get(i), keys.get(i));
+                    completed.set(i);
+                }
+            } else {
+                while(completed.get() < keys.size() - 1 && errors.size() < 10) {
+                    int i = completed.get();
+                    
+                    if(i >= 0) {
+                        String key = keys.get(i);
+                        LookupResult<String> full = root.resolve(key, false);
+                        LookupResult<String> partial = root.resolve(key, true);
+                        
+                        if(full == null || !full.getNode().getValues().contains(key)) {
+                            errors.add("resolve(" + key + ", false) missed a completed put");
+                        }
+                        
+                        if(partial == null || !key.equals(partial.getKey()) || !partial.getNode().getValues().contains(key)) {
+                            errors.add("resolve(" + key + ", true) missed a completed put");
+                        }
+                        
+                        if(!root.getPossibleValues().contains(key)) {
+                            errors.add("getPossibleValues() missed completed put of " + key);
+                        }
+                    }
+                    
+                    //a put that is still running must be visible everywhere once resolve finds it
+                    String next = keys.get(Math.min(i + 1, keys.size() - 1));
+                    LookupResult<String> result = root.resolve(next, false);
+                    
+                    if(result != null && result.getNode().getValues().contains(next) && !root.getPossibleValues().contains(next)) {
+                        errors.add("resolve(" + next + ", false) found a value missing from getPossibleValues()");
+                    }
+                }
+            }
+        });
+        
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(new HashSet<>(keys), root.getPossibleValues());
+    }
+    
+    @Test
+    public void testPartialResolveDuringPut() throws Exception {
+        final StringBuilder sb = new StringBuilder("bb");
+        for(int i = 0 ; i < 2000 ; i++) {
+            sb.append('z');
+        }
+        final String longKey = sb.toString();
+        final Queue<String> errors = new ConcurrentLinkedQueue<>();
+        
+        for(int run = 0 ; run < 200 && errors.isEmpty() ; run++) {
+            final LookupNode<String> root = new LookupNode<>();
+            final AtomicInteger done = new AtomicInteger();
+            root.put("by", "by");
+            
+            ConcurrentRunner.run(2, (t) -> {
+                if(t == 0) {
+                    root.put(longKey, longKey);
+                    done.set(1);
+                } else {
+                    do {
+                        //either still the straight path to "by" or the fork at "b"
+                        LookupResult<String> result = root.resolve("b", true);
+                        
+                        if(result == null) {
+                            errors.add("resolve(b, true) returned null");
+                        } else if(!("by".equals(result.getKey()) && result.getNode().getValues().contains("by"))
+                               && !("b".equals(result.getKey()) && result.getNode().getPossibleValues().size() == 2)) {
+                            errors.add("resolve(b, true) returned '" + result.getKey() + "'");
+                        }
+                        
+                        if(root.resolve(longKey, false) != null && !root.getPossibleValues().contains(longKey)) {
+                            errors.add("getPossibleValues() is missing a resolvable key");
+                        }
+                    } while(done.get() == 0 && errors.isEmpty());
+                }
+            });
+        }
+        
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+    
+    /**
+     * Only runs with <code>-Dncdr.benchmark=true</code>, and only checks the scaling on machines with multiple cores.
+     * 
+     * <p>Times {@link LookupNode#put(String, Object)} on already stripped keys, once with the per-node locks only and once
+     * with every put additionally behind a single tree-wide lock, like the tree was locked before.
+     */
+    @Test
+    public void testPutThroughputScaling() throws Exception {
+        assumeTrue("Benchmarks only run with -Dncdr.benchmark=true", Boolean.getBoolean("ncdr.benchmark"));
+        
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int maxThreads = Math.min(8, cores);
+        long single = 0;
+        long perNode = 0;
+        long global = 0;
+        
+        for(int threads = 1 ; threads <= maxThreads ; threads *= 2) {
+            long bestPerNode = 0;
+            long bestGlobal = 0;
+            
+            for(int round = 0 ; round < 5 ; round++) {
+                bestPerNode = Math.max(bestPerNode, putThroughput(threads, false));
+                bestGlobal = Math.max(bestGlobal, putThroughput(threads, true));
+            }
+            
+            logger.info("Put {} keys with {} thread(s): per-node locks {} keys/s, global lock {} keys/s",
+                    BENCHMARK_KEYS, threads, bestPerNode, bestGlobal);
+            
+            if(threads == 1) {
+                single = bestPerNode;
+            }
+            
+            perNode = bestPerNode;
+            global = bestGlobal;
+        }
+        
+        assumeTrue("Scaling can only be checked with multiple cores", cores > 1);
+        assertTrue("Putting with " + maxThreads + " threads (" + perNode + " keys/s) was not faster than with one (" + single + " keys/s)",
+                perNode > single);
+        assertTrue("Per-node locks (" + perNode + " keys/s) were not faster than a global lock (" + global + " keys/s)",
+                perNode > global);
+    }
+    
+    /* **********************************************************************
+     * HELPERS
+     */
+    
+    /**
+     * Puts {@link #BENCHMARK_KEYS} stripped keys into a new tree, split over the given amount of threads.
+     * 
+     * @param globalLock puts every key behind a single lock for the whole tree
+     * 
+     * @return the throughput in keys per second
+     */
+    private static long putThroughput(final int threads, final boolean globalLock) throws Exception {
+        final LookupNode<String> root = new LookupNode<>();
+        final Object lock = new Object();
+        final List<List<String>> keys = new ArrayList<>();
+        final Set<String> expected = new HashSet<>();
+        
+        for(int i = 0 ; i < threads ; i++) {
+            //every thread gets its own leading char, keys are stripped before timing
+            List<String> threadKeys = new ArrayList<>();
+            
+            for(String word : words(ALPHABET.charAt(i), BENCHMARK_KEYS / threads, i)) {
+                threadKeys.add(word.replaceAll("[AaEeIiOoUu]", ""));
+            }
+            
+            keys.add(threadKeys);
+            expected.addAll(threadKeys);
+        }
+        
+        long elapsed = ConcurrentRunner.run(threads, (t) -> {
+            for(String key : keys.get(t)) {
+                if(globalLock) {
+                    synchronized(lock) {
+                        root.put(key, key);
+                    }
+                } else {
+                    root.put(key, key);
+                }
+            }
+        });
+        
+        assertEquals(expected, root.getPossibleValues());
+        
+        return BENCHMARK_KEYS * TimeUnit.SECONDS.toNanos(1) / Math.max(elapsed, 1);
+    }
+    
+    /**
+     * Creates random words of 3 to 10 chars all starting with the same char.
+     */
+    private static List<String> words(final char first, final int count, final long seed) {
+        Random random = new Random(seed);
+        List<String> words = new ArrayList<>(count);
+        
+        for(int i = 0 ; i < count ; i++) {
+            StringBuilder sb = new StringBuilder().append(first);
+            int length = 2 + random.nextInt(8);
+            
+            for(int j = 0 ; j < length ; j++) {
+                sb.append((char)('a' + random.nextInt(26)));
+            }
+            
+            words.add(sb.toString());
+        }
+        
+        return words;
+    }
+}